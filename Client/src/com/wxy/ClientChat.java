@@ -37,6 +37,7 @@ class ClientFrame extends JFrame {
 
     private static final String HOST = "127.0.0.1";
     private static final int PORT = 8888;
+    private static final String SEARCH_COMMAND = "/search";
     private Socket socket;
     private DataOutputStream outputStream;
     private boolean isConnected = false;
@@ -109,7 +110,12 @@ class ClientFrame extends JFrame {
     private void setupInputFieldListener() {
         chatInputField.addActionListener(e -> {
             String message = chatInputField.getText().trim();
-            if (!message.isEmpty()) {
+            if (message.equals(SEARCH_COMMAND) || message.startsWith(SEARCH_COMMAND + " ")) {
+                String query = message.substring(SEARCH_COMMAND.length()).trim();
+                if (!query.isEmpty()) { // A bare "/search" is ignored rather than sent as chat
+                    sendSearchRequest(query);
+                }
+            } else if (!message.isEmpty()) {
                 sendMessage(message);
             }
         });
@@ -217,6 +223,17 @@ class ClientFrame extends JFrame {
         }
     }        
 
+    private void sendSearchRequest(String query) {
+        try {
+            outputStream.writeInt(3); // Message type 3 for search
+            outputStream.writeUTF(query);
+            outputStream.flush();
+            chatInputField.setText("");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     private String formatReplyMessage(String message) throws Exception {
         int colonIndex = message.indexOf(":");
         if (colonIndex == -1) {
@@ -316,6 +333,8 @@ class ClientFrame extends JFrame {
                         handleImageMessage(inputStream);
                     } else if (type == 2) {
                         handleAudioMessage(inputStream);
+                    } else if (type == 3) {
+                        handleSearchResults(inputStream);
                     }
                 }
             } catch (IOException e) {
@@ -361,6 +380,34 @@ class ClientFrame extends JFrame {
             });
         }
 
+        private void handleSearchResults(DataInputStream inputStream) throws IOException {
+            int count = inputStream.readInt();
+            StringBuilder results = new StringBuilder(count == 0 ? "<i>No matching messages.</i>" : "<i>Search results:</i>");
+            for (int i = 0; i < count; i++) {
+                inputStream.readInt(); // Server message ID; the chat pane doesn't show these
+                String sender = inputStream.readUTF();
+                String snippet = inputStream.readUTF();
+                results.append("<div style='margin-left: 20px;'><b>").append(escapeHtml(sender)).append(":</b> ")
+                        .append(escapeHtml(snippet)).append("</div>");
+            }
+            SwingUtilities.invokeLater(() -> {
+                try {
+                    HTMLDocument doc = (HTMLDocument) chatDisplayPane.getDocument();
+                    HTMLEditorKit editorKit = (HTMLEditorKit) chatDisplayPane.getEditorKit();
+                    editorKit.insertHTML(doc, doc.getLength(), results.toString(), 0, 0, null);
+                    editorKit.insertHTML(doc, doc.getLength(), "<br>", 0, 0, null);
+                    chatDisplayPane.setCaretPosition(doc.getLength());
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            });
+        }
+
+        // Snippets are cut at arbitrary offsets, so any markup in them may be unbalanced
+        private String escapeHtml(String text) {
+            return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+        }
+
         private void displayReplyMessage(String message, int messageId, int replyToId) {
             String originalMessagePreview = getOriginalMessagePreview(replyToId);
             String displayMessage = "Reply to [" + originalMessagePreview + "]: " + message;
@@ -0,0 +1,63 @@
+package com.wxy;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Size-class pool of byte arrays for image/audio frames, so a frame does not
+// cost a fresh byte[] on every hop through the server. Arrays rather than direct
+// buffers because the sockets are plain java.io streams, which read and write
+// byte[] without an extra copy.
+class BufferPool {
+    private static final int MIN_SHIFT = 12; // Smallest size class: 4 KB
+    private static final int MAX_SHIFT = 24; // Largest size class: 16 MB
+    private static final long MAX_POOLED_BYTES = 32L * 1024 * 1024; // Idle arrays kept across all size classes
+
+    private final ConcurrentLinkedQueue<byte[]>[] freeLists;
+    private final AtomicLong pooledBytes = new AtomicLong();
+
+    @SuppressWarnings("unchecked")
+    public BufferPool() {
+        int classes = MAX_SHIFT - MIN_SHIFT + 1;
+        freeLists = (ConcurrentLinkedQueue<byte[]>[]) new ConcurrentLinkedQueue<?>[classes];
+        for (int i = 0; i < classes; i++) {
+            freeLists[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    public PooledBuffer acquire(int length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("Negative buffer length: " + length);
+        }
+        int sizeClass = sizeClassOf(length);
+        if (sizeClass < 0) {
+            // Too big to be worth keeping around, hand out a one-off heap array
+            return new PooledBuffer(this, new byte[length], -1, length);
+        }
+        byte[] buffer = freeLists[sizeClass].poll();
+        if (buffer == null) {
+            buffer = new byte[1 << (sizeClass + MIN_SHIFT)];
+        } else {
+            pooledBytes.addAndGet(-buffer.length);
+        }
+        return new PooledBuffer(this, buffer, sizeClass, length);
+    }
+
+    void recycle(byte[] buffer, int sizeClass) {
+        if (sizeClass < 0) {
+            return;
+        }
+        if (pooledBytes.addAndGet(buffer.length) <= MAX_POOLED_BYTES) {
+            freeLists[sizeClass].offer(buffer);
+        } else {
+            pooledBytes.addAndGet(-buffer.length); // Over budget, let the GC take it
+        }
+    }
+
+    private static int sizeClassOf(int length) {
+        if (length > 1 << MAX_SHIFT) {
+            return -1;
+        }
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(length, 1) - 1);
+        return Math.max(shift, MIN_SHIFT) - MIN_SHIFT;
+    }
+}
@@ -0,0 +1,142 @@
+package com.wxy;
+
+import java.io.*;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+// Compares the old byte[]-per-frame relay against the pooled buffers: reads media
+// frames from an in-memory stream and fans each one out to a number of recipients,
+// reporting wall time, bytes allocated on the heap and GC activity for both.
+public class BufferPoolBenchmark {
+    private static final int FRAMES = 20000;
+    private static final int RECIPIENTS = 8;
+    private static final int SEND_BUFFER_SIZE = 64 * 1024;
+    private static final int[] FRAME_SIZES = {32 * 1024, 64 * 1024, 200 * 1024, 500 * 1024}; // Audio clips and images
+
+    public static void main(String[] args) throws IOException {
+        // Warm up both paths before measuring
+        runHeap(FRAMES / 10);
+        runPooled(new BufferPool(), FRAMES / 10);
+
+        report("byte[] per frame", () -> runHeap(FRAMES));
+        BufferPool pool = new BufferPool();
+        report("pooled byte[]", () -> runPooled(pool, FRAMES));
+    }
+
+    private static void runHeap(int frames) throws IOException {
+        DataInputStream in = new DataInputStream(new FrameSource());
+        DataOutputStream[] recipients = openRecipients();
+        for (int i = 0; i < frames; i++) {
+            int length = FRAME_SIZES[i % FRAME_SIZES.length];
+            byte[] frame = new byte[length];
+            in.readFully(frame);
+            for (DataOutputStream out : recipients) {
+                out.writeInt(1);
+                out.writeInt(frame.length);
+                out.write(frame);
+            }
+        }
+    }
+
+    private static void runPooled(BufferPool pool, int frames) throws IOException {
+        InputStream in = new FrameSource();
+        DataOutputStream[] recipients = openRecipients();
+        for (int i = 0; i < frames; i++) {
+            PooledBuffer frame = pool.acquire(FRAME_SIZES[i % FRAME_SIZES.length]);
+            try {
+                frame.readFully(in);
+                for (DataOutputStream out : recipients) {
+                    frame.retain();
+                    try {
+                        out.writeInt(1);
+                        out.writeInt(frame.length());
+                        frame.writeTo(out);
+                    } finally {
+                        frame.release();
+                    }
+                }
+            } finally {
+                frame.release();
+            }
+        }
+    }
+
+    private static DataOutputStream[] openRecipients() {
+        DataOutputStream[] recipients = new DataOutputStream[RECIPIENTS];
+        for (int i = 0; i < recipients.length; i++) {
+            recipients[i] = new DataOutputStream(new SocketSink());
+        }
+        return recipients;
+    }
+
+    private static void report(String name, Run run) throws IOException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long gcCountBefore = gcCount();
+        long gcTimeBefore = gcTime();
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+
+        run.run();
+
+        long elapsedNanos = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("%-18s %8.1f ms  %10.1f MB allocated  %8.1f MB/s  %4d GCs  %5d ms in GC%n",
+                name, elapsedNanos / 1e6, allocated / 1e6, allocated / 1e6 / seconds,
+                gcCount() - gcCountBefore, gcTime() - gcTimeBefore);
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(gc.getCollectionCount(), 0);
+        }
+        return count;
+    }
+
+    private static long gcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(gc.getCollectionTime(), 0);
+        }
+        return time;
+    }
+
+    private interface Run {
+        void run() throws IOException;
+    }
+
+    // Copies everything written into a fixed buffer, like a socket send buffer would
+    private static class SocketSink extends OutputStream {
+        private final byte[] sendBuffer = new byte[SEND_BUFFER_SIZE];
+
+        @Override
+        public void write(int b) {
+            sendBuffer[0] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            while (len > 0) {
+                int chunk = Math.min(len, sendBuffer.length);
+                System.arraycopy(b, off, sendBuffer, 0, chunk);
+                off += chunk;
+                len -= chunk;
+            }
+        }
+    }
+
+    // Endless stream of bytes standing in for a client socket
+    private static class FrameSource extends InputStream {
+        @Override
+        public int read() {
+            return 0x5A;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            return len;
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package com.wxy;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// Immutable slice of the search index. Postings for every term live in one shared
+// byte array as varint (doc gap, term frequency) pairs, and message texts are kept
+// as UTF-8 so hits can be turned into snippets.
+class IndexSegment {
+    private final String[] terms; // Sorted
+    private final int[] docFreqs;
+    private final int[] postingStarts; // One more entry than terms
+    private final byte[] postings;
+    private final int docCount; // Per-document arrays may be longer than this
+    private final int[] messageIds;
+    private final int[] docLengths;
+    private final int[] textStarts; // One more entry than documents
+    private final byte[] texts;
+    private final long totalLength;
+
+    private IndexSegment(String[] terms, int[] docFreqs, int[] postingStarts, byte[] postings, int docCount,
+                         int[] messageIds, int[] docLengths, int[] textStarts, byte[] texts, long totalLength) {
+        this.terms = terms;
+        this.docFreqs = docFreqs;
+        this.postingStarts = postingStarts;
+        this.postings = postings;
+        this.docCount = docCount;
+        this.messageIds = messageIds;
+        this.docLengths = docLengths;
+        this.textStarts = textStarts;
+        this.texts = texts;
+        this.totalLength = totalLength;
+    }
+
+    public int docCount() {
+        return docCount;
+    }
+
+    public long totalLength() {
+        return totalLength;
+    }
+
+    public int docFreq(String term) {
+        int index = Arrays.binarySearch(terms, term);
+        return index < 0 ? 0 : docFreqs[index];
+    }
+
+    public int messageId(int doc) {
+        return messageIds[doc];
+    }
+
+    public int docLength(int doc) {
+        return docLengths[doc];
+    }
+
+    public String text(int doc) {
+        return new String(texts, textStarts[doc], textStarts[doc + 1] - textStarts[doc], StandardCharsets.UTF_8);
+    }
+
+    // Decodes the postings of a term, or returns null if no document contains it
+    public Postings readPostings(String term) {
+        int index = Arrays.binarySearch(terms, term);
+        if (index < 0) {
+            return null;
+        }
+        int count = docFreqs[index];
+        int[] docs = new int[count];
+        int[] freqs = new int[count];
+        int pos = postingStarts[index];
+        int doc = 0;
+        for (int i = 0; i < count; i++) {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = postings[pos++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            doc += value;
+            docs[i] = doc;
+
+            value = 0;
+            shift = 0;
+            do {
+                b = postings[pos++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            freqs[i] = value;
+        }
+        return new Postings(docs, freqs);
+    }
+
+    // Combines segments into one, renumbering documents in list order
+    static IndexSegment merge(List<IndexSegment> segments) {
+        int[] docBases = new int[segments.size()];
+        int docCount = 0;
+        long totalLength = 0;
+        HashSet<String> termSet = new HashSet<>();
+        for (int s = 0; s < segments.size(); s++) {
+            docBases[s] = docCount;
+            docCount += segments.get(s).docCount();
+            totalLength += segments.get(s).totalLength();
+            Collections.addAll(termSet, segments.get(s).terms);
+        }
+        String[] terms = termSet.toArray(new String[0]);
+        Arrays.sort(terms);
+
+        int[] docFreqs = new int[terms.length];
+        int[] postingStarts = new int[terms.length + 1];
+        Bytes postings = new Bytes();
+        for (int t = 0; t < terms.length; t++) {
+            postingStarts[t] = postings.size();
+            int lastDoc = 0;
+            for (int s = 0; s < segments.size(); s++) {
+                Postings segmentPostings = segments.get(s).readPostings(terms[t]);
+                if (segmentPostings == null) {
+                    continue;
+                }
+                for (int i = 0; i < segmentPostings.docs.length; i++) {
+                    int doc = docBases[s] + segmentPostings.docs[i];
+                    postings.writeVarInt(doc - lastDoc);
+                    postings.writeVarInt(segmentPostings.freqs[i]);
+                    lastDoc = doc;
+                }
+                docFreqs[t] += segmentPostings.docs.length;
+            }
+        }
+        postingStarts[terms.length] = postings.size();
+
+        int[] messageIds = new int[docCount];
+        int[] docLengths = new int[docCount];
+        int[] textStarts = new int[docCount + 1];
+        Bytes texts = new Bytes();
+        for (int s = 0; s < segments.size(); s++) {
+            IndexSegment segment = segments.get(s);
+            System.arraycopy(segment.messageIds, 0, messageIds, docBases[s], segment.docCount());
+            System.arraycopy(segment.docLengths, 0, docLengths, docBases[s], segment.docCount());
+            for (int doc = 0; doc < segment.docCount(); doc++) {
+                textStarts[docBases[s] + doc] = texts.size() + segment.textStarts[doc];
+            }
+            texts.write(segment.texts, 0, segment.textStarts[segment.docCount()]);
+        }
+        textStarts[docCount] = texts.size();
+
+        return new IndexSegment(terms, docFreqs, postingStarts, postings.toArray(), docCount,
+                messageIds, docLengths, textStarts, texts.toArray(), totalLength);
+    }
+
+    // Collects newly added messages until they are frozen into a segment. Everything
+    // here is append-only and arrays are replaced rather than resized in place, so a
+    // View taken under the index lock stays valid after the lock is released.
+    static class Builder {
+        private final HashMap<String, PostingList> postings = new HashMap<>();
+        private final HashMap<String, Integer> termFreqs = new HashMap<>();
+        private int docCount = 0;
+        private long totalLength = 0;
+        private int[] messageIds = new int[64];
+        private int[] docLengths = new int[64];
+        private int[] textStarts = new int[65];
+        private final Bytes texts = new Bytes();
+
+        public int docCount() {
+            return docCount;
+        }
+
+        public void addDocument(int messageId, String text, List<String> tokens) {
+            int doc = docCount;
+            termFreqs.clear();
+            for (String token : tokens) {
+                termFreqs.merge(token, 1, Integer::sum);
+            }
+            for (Map.Entry<String, Integer> entry : termFreqs.entrySet()) {
+                postings.computeIfAbsent(entry.getKey(), term -> new PostingList()).add(doc, entry.getValue());
+            }
+            if (doc == messageIds.length) {
+                messageIds = Arrays.copyOf(messageIds, doc * 2);
+                docLengths = Arrays.copyOf(docLengths, doc * 2);
+                textStarts = Arrays.copyOf(textStarts, doc * 2 + 1);
+            }
+            byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+            texts.write(utf8, 0, utf8.length);
+            messageIds[doc] = messageId;
+            docLengths[doc] = tokens.size();
+            textStarts[doc + 1] = texts.size();
+            totalLength += tokens.size();
+            docCount++;
+        }
+
+        // Captures what a search for these terms needs without copying anything
+        public View view(List<String> terms) {
+            ArrayList<String> present = new ArrayList<>();
+            for (String term : terms) {
+                if (postings.containsKey(term)) {
+                    present.add(term);
+                }
+            }
+            Collections.sort(present);
+            View view = new View(present.toArray(new String[0]), docCount, messageIds, docLengths, textStarts,
+                    texts.buffer, totalLength);
+            for (int t = 0; t < view.terms.length; t++) {
+                PostingList list = postings.get(view.terms[t]);
+                view.postingData[t] = list.data.buffer;
+                view.postingSizes[t] = list.data.size();
+                view.docFreqs[t] = list.docFreq;
+            }
+            return view;
+        }
+
+        public IndexSegment build() {
+            String[] terms = postings.keySet().toArray(new String[0]);
+            Arrays.sort(terms);
+            int[] docFreqs = new int[terms.length];
+            int[] postingStarts = new int[terms.length + 1];
+            Bytes encoded = new Bytes();
+            for (int t = 0; t < terms.length; t++) {
+                PostingList list = postings.get(terms[t]);
+                postingStarts[t] = encoded.size();
+                docFreqs[t] = list.docFreq;
+                encoded.write(list.data.buffer, 0, list.data.size());
+            }
+            postingStarts[terms.length] = encoded.size();
+
+            return new IndexSegment(terms, docFreqs, postingStarts, encoded.toArray(), docCount,
+                    Arrays.copyOf(messageIds, docCount), Arrays.copyOf(docLengths, docCount),
+                    Arrays.copyOf(textStarts, docCount + 1), texts.toArray(), totalLength);
+        }
+    }
+
+    // Builder contents as of one moment, limited to the terms of a single query
+    static class View {
+        private final String[] terms; // Sorted
+        private final byte[][] postingData;
+        private final int[] postingSizes;
+        private final int[] docFreqs;
+        private final int docCount;
+        private final int[] messageIds;
+        private final int[] docLengths;
+        private final int[] textStarts;
+        private final byte[] texts;
+        private final long totalLength;
+
+        private View(String[] terms, int docCount, int[] messageIds, int[] docLengths, int[] textStarts,
+                     byte[] texts, long totalLength) {
+            this.terms = terms;
+            this.postingData = new byte[terms.length][];
+            this.postingSizes = new int[terms.length];
+            this.docFreqs = new int[terms.length];
+            this.docCount = docCount;
+            this.messageIds = messageIds;
+            this.docLengths = docLengths;
+            this.textStarts = textStarts;
+            this.texts = texts;
+            this.totalLength = totalLength;
+        }
+
+        // Only copies the postings of the query terms; safe to call without the index lock
+        public IndexSegment toSegment() {
+            int[] postingStarts = new int[terms.length + 1];
+            Bytes postings = new Bytes();
+            for (int t = 0; t < terms.length; t++) {
+                postingStarts[t] = postings.size();
+                postings.write(postingData[t], 0, postingSizes[t]);
+            }
+            postingStarts[terms.length] = postings.size();
+            return new IndexSegment(terms, docFreqs, postingStarts, postings.toArray(), docCount,
+                    messageIds, docLengths, textStarts, texts, totalLength);
+        }
+    }
+
+    static class Postings {
+        final int[] docs; // Ascending
+        final int[] freqs;
+
+        Postings(int[] docs, int[] freqs) {
+            this.docs = docs;
+            this.freqs = freqs;
+        }
+    }
+
+    private static class PostingList {
+        private final Bytes data = new Bytes();
+        private int lastDoc = 0;
+        private int docFreq = 0;
+
+        void add(int doc, int termFreq) {
+            data.writeVarInt(doc - lastDoc);
+            data.writeVarInt(termFreq);
+            lastDoc = doc;
+            docFreq++;
+        }
+    }
+
+    // Growable byte array; unlike ByteArrayOutputStream it is not synchronized
+    private static class Bytes {
+        private byte[] buffer = new byte[16];
+        private int size = 0;
+
+        int size() {
+            return size;
+        }
+
+        void writeVarInt(int value) {
+            ensureCapacity(5);
+            while ((value & ~0x7F) != 0) {
+                buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        void write(byte[] bytes, int offset, int length) {
+            ensureCapacity(length);
+            System.arraycopy(bytes, offset, buffer, size, length);
+            size += length;
+        }
+
+        byte[] toArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+
+        private void ensureCapacity(int extra) {
+            if (size + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+            }
+        }
+    }
+}
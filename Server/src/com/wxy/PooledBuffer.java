@@ -0,0 +1,60 @@
+package com.wxy;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// A frame held in a pooled buffer. Starts with one reference owned by whoever
+// acquired it; every extra holder retains it and the last release recycles it.
+class PooledBuffer {
+    private final BufferPool pool;
+    private final byte[] buffer;
+    private final int sizeClass;
+    private final int length;
+    private final AtomicInteger refCount = new AtomicInteger(1);
+
+    PooledBuffer(BufferPool pool, byte[] buffer, int sizeClass, int length) {
+        this.pool = pool;
+        this.buffer = buffer;
+        this.sizeClass = sizeClass;
+        this.length = length;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public PooledBuffer retain() {
+        if (refCount.getAndIncrement() <= 0) {
+            refCount.getAndDecrement();
+            throw new IllegalStateException("Buffer already released");
+        }
+        return this;
+    }
+
+    public void release() {
+        int remaining = refCount.decrementAndGet();
+        if (remaining == 0) {
+            pool.recycle(buffer, sizeClass);
+        } else if (remaining < 0) {
+            throw new IllegalStateException("Buffer released too many times");
+        }
+    }
+
+    public void readFully(InputStream in) throws IOException {
+        int bytesRead = 0;
+        while (bytesRead < length) {
+            int count = in.read(buffer, bytesRead, length - bytesRead);
+            if (count < 0) {
+                throw new EOFException("Stream ended after " + bytesRead + " of " + length + " bytes");
+            }
+            bytesRead += count;
+        }
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, length);
+    }
+}
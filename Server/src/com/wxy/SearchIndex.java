@@ -0,0 +1,292 @@
+package com.wxy;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Incremental inverted index over chat text. New messages go into an in-memory
+// builder that is frozen into a segment every FLUSH_DOCS messages; a background
+// thread merges runs of similarly sized segments so searches touch only a few.
+class SearchIndex {
+    private static final int FLUSH_DOCS = 4096;
+    private static final int MERGE_FACTOR = 4;
+    private static final int MAX_TOKEN_LENGTH = 64;
+    private static final int MAX_QUERY_TERMS = 16; // Scoring cost grows with matches times terms
+    private static final int SNIPPET_RADIUS = 40;
+    private static final double K1 = 1.2; // BM25 parameters
+    private static final double B = 0.75;
+
+    private final ExecutorService merger = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "search-index-merger");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile List<IndexSegment> segments = Collections.emptyList(); // Replaced, never modified
+    private IndexSegment.Builder builder = new IndexSegment.Builder();
+
+    public void add(int messageId, String text) {
+        List<String> tokens = tokenize(text);
+        synchronized (this) {
+            builder.addDocument(messageId, text, tokens);
+            if (builder.docCount() >= FLUSH_DOCS) {
+                ArrayList<IndexSegment> updated = new ArrayList<>(segments);
+                updated.add(builder.build());
+                segments = Collections.unmodifiableList(updated);
+                builder = new IndexSegment.Builder();
+                merger.execute(this::mergeSegments);
+            }
+        }
+    }
+
+    public List<Hit> search(String query, int limit) {
+        List<String> terms = new ArrayList<>(new LinkedHashSet<>(tokenize(query)));
+        if (terms.size() > MAX_QUERY_TERMS) {
+            terms = terms.subList(0, MAX_QUERY_TERMS);
+        }
+        if (terms.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        ArrayList<IndexSegment> snapshot;
+        IndexSegment.View recent = null;
+        synchronized (this) {
+            snapshot = new ArrayList<>(segments);
+            if (builder.docCount() > 0) {
+                recent = builder.view(terms);
+            }
+        }
+        if (recent != null) {
+            snapshot.add(recent.toSegment());
+        }
+
+        long docCount = 0;
+        long totalLength = 0;
+        for (IndexSegment segment : snapshot) {
+            docCount += segment.docCount();
+            totalLength += segment.totalLength();
+        }
+        if (docCount == 0) {
+            return Collections.emptyList();
+        }
+        double averageLength = Math.max(1.0, (double) totalLength / docCount);
+        double[] idfs = new double[terms.size()];
+        for (int t = 0; t < terms.size(); t++) {
+            long docFreq = 0;
+            for (IndexSegment segment : snapshot) {
+                docFreq += segment.docFreq(terms.get(t));
+            }
+            idfs[t] = Math.log(1 + (docCount - docFreq + 0.5) / (docFreq + 0.5));
+        }
+
+        // Keeps the best hits seen so far, worst on top
+        PriorityQueue<Candidate> best = new PriorityQueue<>(limit + 1, Candidate::compareTo);
+        for (IndexSegment segment : snapshot) {
+            scoreSegment(segment, terms, idfs, averageLength, best, limit);
+        }
+
+        ArrayList<Candidate> ranked = new ArrayList<>(best);
+        ranked.sort(Collections.reverseOrder());
+        ArrayList<Hit> hits = new ArrayList<>(ranked.size());
+        for (Candidate candidate : ranked) {
+            // Messages are indexed the way clients show them, "sender: message"
+            String text = candidate.segment.text(candidate.doc);
+            int separator = text.indexOf(": ");
+            String sender = separator < 0 ? "" : text.substring(0, separator);
+            String body = separator < 0 ? text : text.substring(separator + 2);
+            hits.add(new Hit(candidate.messageId(), candidate.score, sender, snippet(body, terms)));
+        }
+        return hits;
+    }
+
+    // Walks the postings of all query terms together, document at a time
+    private void scoreSegment(IndexSegment segment, List<String> terms, double[] idfs, double averageLength,
+                              PriorityQueue<Candidate> best, int limit) {
+        IndexSegment.Postings[] postings = new IndexSegment.Postings[terms.size()];
+        int[] positions = new int[terms.size()];
+        boolean any = false;
+        for (int t = 0; t < terms.size(); t++) {
+            postings[t] = segment.readPostings(terms.get(t));
+            any |= postings[t] != null;
+        }
+        if (!any) {
+            return;
+        }
+        while (true) {
+            int doc = Integer.MAX_VALUE;
+            for (int t = 0; t < postings.length; t++) {
+                if (postings[t] != null && positions[t] < postings[t].docs.length) {
+                    doc = Math.min(doc, postings[t].docs[positions[t]]);
+                }
+            }
+            if (doc == Integer.MAX_VALUE) {
+                return;
+            }
+            double lengthNorm = K1 * (1 - B + B * segment.docLength(doc) / averageLength);
+            double score = 0;
+            for (int t = 0; t < postings.length; t++) {
+                if (postings[t] != null && positions[t] < postings[t].docs.length
+                        && postings[t].docs[positions[t]] == doc) {
+                    int termFreq = postings[t].freqs[positions[t]++];
+                    score += idfs[t] * termFreq * (K1 + 1) / (termFreq + lengthNorm);
+                }
+            }
+            if (best.size() < limit) {
+                best.add(new Candidate(segment, doc, score));
+            } else if (score > best.peek().score
+                    || (score == best.peek().score && segment.messageId(doc) > best.peek().messageId())) {
+                best.poll();
+                best.add(new Candidate(segment, doc, score));
+            }
+        }
+    }
+
+    // Centres on the first token of the text that matches a query term
+    private static String snippet(String text, List<String> terms) {
+        int[] match = {-1, 0};
+        forEachToken(text, (token, start, end) -> {
+            if (match[0] < 0 && terms.contains(token)) {
+                match[0] = start;
+                match[1] = end;
+            }
+        });
+        int start = Math.max(0, match[0] - SNIPPET_RADIUS);
+        int end = Math.min(text.length(), match[1] + SNIPPET_RADIUS);
+        // Don't cut a surrogate pair in half
+        if (start > 0 && Character.isLowSurrogate(text.charAt(start))) {
+            start--;
+        }
+        if (end < text.length() && Character.isLowSurrogate(text.charAt(end))) {
+            end++;
+        }
+        return (start > 0 ? "..." : "") + text.substring(start, end) + (end < text.length() ? "..." : "");
+    }
+
+    static List<String> tokenize(String text) {
+        ArrayList<String> tokens = new ArrayList<>();
+        forEachToken(text, (token, start, end) -> tokens.add(token));
+        return tokens;
+    }
+
+    // Lower-cased runs of letters and digits; Chinese characters count as one token each
+    private static void forEachToken(String text, TokenVisitor visitor) {
+        int start = -1;
+        int i = 0;
+        while (i < text.length()) {
+            int codePoint = text.codePointAt(i);
+            int next = i + Character.charCount(codePoint);
+            if (Character.UnicodeScript.of(codePoint) == Character.UnicodeScript.HAN) {
+                visitToken(visitor, text, start, i);
+                visitor.visit(text.substring(i, next), i, next);
+                start = -1;
+            } else if (Character.isLetterOrDigit(codePoint)) {
+                if (start < 0) {
+                    start = i;
+                }
+            } else {
+                visitToken(visitor, text, start, i);
+                start = -1;
+            }
+            i = next;
+        }
+        visitToken(visitor, text, start, i);
+    }
+
+    private static void visitToken(TokenVisitor visitor, String text, int start, int end) {
+        if (start >= 0 && end - start <= MAX_TOKEN_LENGTH) {
+            visitor.visit(text.substring(start, end).toLowerCase(Locale.ROOT), start, end);
+        }
+    }
+
+    private interface TokenVisitor {
+        void visit(String token, int start, int end);
+    }
+
+    // Merges MERGE_FACTOR neighbouring segments of the same size tier until none are left
+    private void mergeSegments() {
+        while (true) {
+            List<IndexSegment> current = segments;
+            List<IndexSegment> toMerge = null;
+            for (int i = 0; i + MERGE_FACTOR <= current.size() && toMerge == null; i++) {
+                int tier = tier(current.get(i));
+                boolean sameTier = true;
+                for (int j = i + 1; j < i + MERGE_FACTOR; j++) {
+                    sameTier &= tier(current.get(j)) == tier;
+                }
+                if (sameTier) {
+                    toMerge = current.subList(i, i + MERGE_FACTOR);
+                }
+            }
+            if (toMerge == null) {
+                return;
+            }
+
+            IndexSegment merged = IndexSegment.merge(toMerge);
+            synchronized (this) {
+                // Only add() touches the list meanwhile, and it only appends
+                ArrayList<IndexSegment> updated = new ArrayList<>(segments);
+                int at = updated.indexOf(toMerge.get(0));
+                updated.subList(at, at + MERGE_FACTOR).clear();
+                updated.add(at, merged);
+                segments = Collections.unmodifiableList(updated);
+            }
+        }
+    }
+
+    private static int tier(IndexSegment segment) {
+        int tier = 0;
+        for (long size = segment.docCount() / FLUSH_DOCS; size >= MERGE_FACTOR; size /= MERGE_FACTOR) {
+            tier++;
+        }
+        return tier;
+    }
+
+    int segmentCount() {
+        return segments.size();
+    }
+
+    // Blocks until merges queued so far have finished
+    void awaitMerges() throws InterruptedException {
+        try {
+            merger.submit(() -> { }).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    static class Hit {
+        final int messageId;
+        final double score;
+        final String sender;
+        final String snippet;
+
+        Hit(int messageId, double score, String sender, String snippet) {
+            this.messageId = messageId;
+            this.score = score;
+            this.sender = sender;
+            this.snippet = snippet;
+        }
+    }
+
+    private static class Candidate implements Comparable<Candidate> {
+        final IndexSegment segment;
+        final int doc;
+        final double score;
+
+        Candidate(IndexSegment segment, int doc, double score) {
+            this.segment = segment;
+            this.doc = doc;
+            this.score = score;
+        }
+
+        int messageId() {
+            return segment.messageId(doc);
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            int byScore = Double.compare(score, other.score);
+            // On equal scores the newer message ranks higher
+            return byScore != 0 ? byScore : Integer.compare(messageId(), other.messageId());
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.wxy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Feeds synthetic chat messages into a SearchIndex and reports indexing throughput,
+// then runs random one- to three-word queries and reports their latency, and finally
+// mixes both the way a busy server would: several reader threads adding messages
+// while others search, reporting how long each side had to wait.
+// Usage: java com.wxy.SearchIndexBenchmark [messages] (default 2,000,000; give it -Xmx2g or so)
+public class SearchIndexBenchmark {
+    private static final int VOCABULARY = 50000;
+    private static final int USERS = 200;
+    private static final int QUERIES = 5000;
+    private static final int RESULTS = 20;
+    private static final int WRITERS = 4;
+    private static final int SEARCHERS = 2;
+    private static final int MIXED_MESSAGES_PER_WRITER = 100000;
+
+    public static void main(String[] args) throws InterruptedException {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        Random random = new Random(42);
+        SearchIndex index = new SearchIndex();
+
+        long start = System.nanoTime();
+        for (int id = 1; id <= messages; id++) {
+            index.add(id, randomMessage(random));
+        }
+        long indexed = System.nanoTime();
+        index.awaitMerges();
+        long merged = System.nanoTime();
+        System.out.printf("Indexed %,d messages in %.1f s (%,.0f messages/s), merges done after %.1f s more, %d segments%n",
+                messages, (indexed - start) / 1e9, messages / ((indexed - start) / 1e9),
+                (merged - indexed) / 1e9, index.segmentCount());
+
+        // Warm up before measuring query latency
+        for (int i = 0; i < QUERIES / 5; i++) {
+            index.search(randomQuery(random), RESULTS);
+        }
+        long[] latencies = new long[QUERIES];
+        long hits = 0;
+        for (int i = 0; i < QUERIES; i++) {
+            String query = randomQuery(random);
+            long queryStart = System.nanoTime();
+            List<SearchIndex.Hit> results = index.search(query, RESULTS);
+            latencies[i] = System.nanoTime() - queryStart;
+            hits += results.size();
+        }
+        Arrays.sort(latencies);
+        System.out.printf("%,d queries, %.1f hits each: p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+                QUERIES, (double) hits / QUERIES, percentile(latencies, 0.50), percentile(latencies, 0.90),
+                percentile(latencies, 0.99), latencies[QUERIES - 1] / 1e6);
+
+        runMixed(index, messages);
+    }
+
+    private static void runMixed(SearchIndex index, int firstId) throws InterruptedException {
+        AtomicInteger nextId = new AtomicInteger(firstId);
+        AtomicInteger writersLeft = new AtomicInteger(WRITERS);
+        long[][] addLatencies = new long[WRITERS][MIXED_MESSAGES_PER_WRITER];
+        List<List<Long>> searchLatencies = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++) {
+            long[] latencies = addLatencies[w];
+            Random random = new Random(100 + w);
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < latencies.length; i++) {
+                    String message = randomMessage(random);
+                    long addStart = System.nanoTime();
+                    index.add(nextId.incrementAndGet(), message);
+                    latencies[i] = System.nanoTime() - addStart;
+                }
+                writersLeft.decrementAndGet();
+            }));
+        }
+        for (int s = 0; s < SEARCHERS; s++) {
+            List<Long> latencies = new ArrayList<>();
+            searchLatencies.add(latencies);
+            Random random = new Random(200 + s);
+            threads.add(new Thread(() -> {
+                while (writersLeft.get() > 0) {
+                    String query = randomQuery(random);
+                    long queryStart = System.nanoTime();
+                    index.search(query, RESULTS);
+                    latencies.add(System.nanoTime() - queryStart);
+                }
+            }));
+        }
+
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        long[] adds = new long[WRITERS * MIXED_MESSAGES_PER_WRITER];
+        for (int w = 0; w < WRITERS; w++) {
+            System.arraycopy(addLatencies[w], 0, adds, w * MIXED_MESSAGES_PER_WRITER, MIXED_MESSAGES_PER_WRITER);
+        }
+        Arrays.sort(adds);
+        long[] searches = searchLatencies.stream().flatMap(List::stream).mapToLong(Long::longValue).sorted().toArray();
+        System.out.printf("Mixed: %d writers added %,d messages in %.1f s (%,.0f messages/s) while %d searchers ran %,d queries%n",
+                WRITERS, adds.length, elapsed / 1e9, adds.length / (elapsed / 1e9), SEARCHERS, searches.length);
+        System.out.printf("  add:    p50 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.2f ms%n",
+                percentile(adds, 0.50), percentile(adds, 0.99), percentile(adds, 0.999), adds[adds.length - 1] / 1e6);
+        if (searches.length > 0) {
+            System.out.printf("  search: p50 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+                    percentile(searches, 0.50), percentile(searches, 0.99), searches[searches.length - 1] / 1e6);
+        }
+    }
+
+    private static String randomMessage(Random random) {
+        StringBuilder message = new StringBuilder("user").append(random.nextInt(USERS)).append(':');
+        int words = 3 + random.nextInt(12);
+        for (int i = 0; i < words; i++) {
+            message.append(' ').append(randomWord(random));
+        }
+        return message.toString();
+    }
+
+    private static String randomQuery(Random random) {
+        StringBuilder query = new StringBuilder(randomWord(random));
+        int words = random.nextInt(3);
+        for (int i = 0; i < words; i++) {
+            query.append(' ').append(randomWord(random));
+        }
+        return query.toString();
+    }
+
+    // Roughly Zipf distributed: a few words are very common, most are rare
+    private static String randomWord(Random random) {
+        int rank = (int) Math.pow(VOCABULARY, random.nextDouble()) - 1;
+        return "w" + Integer.toString(rank, 36);
+    }
+
+    private static double percentile(long[] sorted, double fraction) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * fraction))] / 1e6;
+    }
+}
@@ -7,6 +7,8 @@ import java.io.*;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 public class ServerChat {
     public static void main(String[] args) {
@@ -20,10 +22,15 @@ class ServerFrame extends JFrame {
     private JButton startButton = new JButton("Start");
     private JButton stopButton = new JButton("Stop");
     private static final int PORT = 8888;
+    private static final int MAX_SEARCH_RESULTS = 20;
+    private static final int MAX_QUERY_LENGTH = 256;
+    private static final int MAX_FRAME_LENGTH = 32 * 1024 * 1024; // About 17 minutes of recorded audio
     private ServerSocket serverSocket;
     private ArrayList<ClientConnection> clientConnections = new ArrayList<>();
     private boolean isRunning = false;
     private int lastMessageId = 0;
+    private final BufferPool bufferPool = new BufferPool();
+    private final SearchIndex searchIndex = new SearchIndex();
 
     public ServerFrame() {
         super("Server Window");
@@ -94,19 +101,21 @@ class ServerFrame extends JFrame {
         return ++lastMessageId; // Increment and return the next message ID
     }
 
-    public void broadcastMessage(String message) {
+    public int broadcastMessage(String message) {
         int messageId = getNextMessageId(); // Generate a unique message ID for each new message
         for (ClientConnection client : clientConnections) {
             client.sendMessage(messageId, message); // Append message ID to the message
         }
+        return messageId;
     }
 
-    void broadcastImage(byte[] imageData) {
-        clientConnections.forEach(conn -> conn.sendImage(imageData));
+    // Each recipient holds its own reference; the buffer goes back to the pool after the last write
+    void broadcastImage(PooledBuffer imageData) {
+        clientConnections.forEach(conn -> conn.sendImage(imageData.retain()));
     }
 
-    void broadcastAudio(byte[] audioData) {
-        clientConnections.forEach(conn -> conn.sendAudio(audioData));
+    void broadcastAudio(PooledBuffer audioData) {
+        clientConnections.forEach(conn -> conn.sendAudio(audioData.retain()));
     }
 
     class ClientConnection implements Runnable {
@@ -142,6 +151,9 @@ class ServerFrame extends JFrame {
                         case 2:  // Audio data
                             handleAudioData();
                             break;
+                        case 3:  // Search request
+                            handleSearchRequest();
+                            break;
                         default:
                             System.out.println("Invalid message type received: " + type);
                             break;
@@ -162,26 +174,61 @@ class ServerFrame extends JFrame {
         private void handleTextMessage() throws IOException {
             String receivedMessage = inputStream.readUTF();
             System.out.println("Received text message: " + receivedMessage);
-            broadcastMessage(receivedMessage);
+            int messageId = broadcastMessage(receivedMessage);
+            // Index what clients display, i.e. without the sender's own message ID
+            int separator = receivedMessage.indexOf(';');
+            searchIndex.add(messageId, receivedMessage.substring(separator + 1));
+        }
+
+        private void handleSearchRequest() throws IOException {
+            String query = inputStream.readUTF();
+            if (query.length() > MAX_QUERY_LENGTH) {
+                System.out.println("Rejected search query of " + query.length() + " characters.");
+                sendSearchResults(Collections.emptyList());
+                return;
+            }
+            List<SearchIndex.Hit> hits = searchIndex.search(query, MAX_SEARCH_RESULTS);
+            System.out.println("Search for \"" + query + "\" returned " + hits.size() + " results.");
+            sendSearchResults(hits);
         }
         
         private void handleImageData() throws IOException {
-            int length = inputStream.readInt();
-            byte[] imageData = new byte[length];
-            inputStream.readFully(imageData);
-            broadcastImage(imageData);
+            PooledBuffer imageData = readFrame();
+            try {
+                broadcastImage(imageData);
+            } finally {
+                imageData.release();
+            }
             System.out.println("Received and broadcasting image data.");
         }
         
         private void handleAudioData() throws IOException {
-            int length = inputStream.readInt();
-            byte[] audioData = new byte[length];
-            inputStream.readFully(audioData);
-            broadcastAudio(audioData);
+            PooledBuffer audioData = readFrame();
+            try {
+                broadcastAudio(audioData);
+            } finally {
+                audioData.release();
+            }
             System.out.println("Received and broadcasting audio data.");
         }
 
-        public void sendMessage(int messageId, String message) {
+        private PooledBuffer readFrame() throws IOException {
+            int length = inputStream.readInt();
+            // The length comes from the client; refusing it drops the connection
+            if (length < 0 || length > MAX_FRAME_LENGTH) {
+                throw new IOException("Invalid frame length: " + length);
+            }
+            PooledBuffer frame = bufferPool.acquire(length);
+            try {
+                frame.readFully(inputStream);
+            } catch (IOException e) {
+                frame.release();
+                throw e;
+            }
+            return frame;
+        }
+
+        public synchronized void sendMessage(int messageId, String message) {
             try {
                 outputStream.writeInt(0); // Indicate this is a text message
                 outputStream.writeUTF(messageId + ";" + message);
@@ -191,24 +238,43 @@ class ServerFrame extends JFrame {
             }
         }
 
-        public void sendImage(byte[] imageData) {
+        public synchronized void sendSearchResults(List<SearchIndex.Hit> hits) {
+            try {
+                outputStream.writeInt(3); // Indicate these are search results
+                outputStream.writeInt(hits.size());
+                for (SearchIndex.Hit hit : hits) { // Best match first
+                    outputStream.writeInt(hit.messageId);
+                    outputStream.writeUTF(hit.sender);
+                    outputStream.writeUTF(hit.snippet);
+                }
+                outputStream.flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        public synchronized void sendImage(PooledBuffer imageData) {
             try {
                 outputStream.writeInt(1); // Indicate this is an image
-                outputStream.writeInt(imageData.length);
-                outputStream.write(imageData);
+                outputStream.writeInt(imageData.length());
+                imageData.writeTo(outputStream);
             } catch (IOException e) {
                 e.printStackTrace();
+            } finally {
+                imageData.release();
             }
         }
 
-        public void sendAudio(byte[] audioData) {
+        public synchronized void sendAudio(PooledBuffer audioData) {
             try {
                 outputStream.writeInt(2); // Indicate this is an audio
-                outputStream.writeInt(audioData.length);
-                outputStream.write(audioData, 0, audioData.length);
+                outputStream.writeInt(audioData.length());
+                audioData.writeTo(outputStream);
                 outputStream.flush(); // Ensure all data is sent immediately
             } catch (IOException e) {
                 e.printStackTrace();
+            } finally {
+                audioData.release();
             }
         }
 